@@ -7,6 +7,7 @@ import javax.swing.plaf.basic.BasicProgressBarUI;
 import java.awt.*;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
@@ -18,7 +19,6 @@ import java.util.*;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.CRC32;
 
 /**
  * Responsible for updating and launching the Scape05 client.
@@ -38,6 +38,7 @@ public class Updater implements Runnable {
         FETCH_PROPERTIES,
         DOWNLOAD_FILES,
         VERIFY,
+        RESTORE_LIBRARIES,
         STARTUP,
         FINISHED
     }
@@ -45,8 +46,26 @@ public class Updater implements Runnable {
     private JFrame frame;
     private Progress progress = new Progress();
     private UpdateState currentState = UpdateState.FETCH_PROPERTIES;
+    private Verifier verifier = new Verifier();
+
+    /**
+     * If true, every cached file is re-hashed instead of trusting unchanged verification stamps.
+     */
+    private boolean deepVerify;
+
+    /**
+     * Set once corrupt libraries have been re-downloaded, so a second failure stops the updater.
+     */
+    private boolean librariesRestored;
+
+    /**
+     * Set once the client has been cleaned up and downloaded again, so a second mismatch stops the updater.
+     */
+    private boolean clientRedownloaded;
+
+    private Updater(boolean deepVerify) {
+        this.deepVerify = deepVerify;
 
-    private Updater() {
         // Customize the progress bar UI
         progress.getProgressBar().setUI(new BasicProgressBarUI() {
             @Override
@@ -86,7 +105,8 @@ public class Updater implements Runnable {
             LOGGER.log(Level.WARNING, "Failed to set system look and feel.", ex);
         }
 
-        new Updater();
+        // "--verify" forces a full deep verification of the cache
+        new Updater(Arrays.asList(args).contains("--verify"));
     }
 
     // --- UI helpers:
@@ -155,8 +175,14 @@ public class Updater implements Runnable {
 
                     case VERIFY:
                         LOGGER.info("State: VERIFY");
-                        verifyFiles(properties);
                         currentState = UpdateState.STARTUP;
+                        verifyFiles(properties);
+                        break;
+
+                    case RESTORE_LIBRARIES:
+                        LOGGER.info("State: RESTORE_LIBRARIES");
+                        restoreLibraries(properties);
+                        currentState = UpdateState.VERIFY;
                         break;
 
                     case STARTUP:
@@ -188,6 +214,8 @@ public class Updater implements Runnable {
         LOGGER.fine("Cleaning up old files...");
         Files.deleteIfExists(Signlink.getPath("code.dat"));
         Files.deleteIfExists(Signlink.getPath("revision.txt"));
+        verifier.reset();
+        clientRedownloaded = true;
     }
 
     /**
@@ -235,11 +263,13 @@ public class Updater implements Runnable {
         String revision = properties.getProperty("revision");
 
         byte[] jar;
-        // If the files already exist, read them; otherwise download fresh
+        // If the files already exist, keep them; otherwise download fresh
         if (Files.exists(codePath) && Files.exists(revisionTxt)) {
             LOGGER.info("Local client jar (code.dat) and revision.txt found. Skipping download...");
-            jar = Files.readAllBytes(codePath);
         } else {
+            // Fresh files get fresh stamps
+            verifier.reset();
+
             // Download code jar
             setAction("Downloading game client...0%");
             setPercent(0);
@@ -252,16 +282,7 @@ public class Updater implements Runnable {
 
             // Download libraries, if enabled
             if (Boolean.parseBoolean(properties.getProperty("lib"))) {
-                setAction("Downloading libraries...0%");
-                setPercent(0);
-                LOGGER.info("Downloading libraries: " + url + "lib.zip");
-                byte[] libs = Signlink.download(url + "lib.zip", (percent) -> {
-                    setPercent(percent);
-                    setAction("Downloading libraries..." + percent + "%");
-                });
-
-                // Unzip them directly into the same cache directory
-                Signlink.unzip(libs, Signlink.getCachePath());
+                downloadLibraries(properties);
             } else {
                 LOGGER.info("Skipping library download (libraries=false).");
             }
@@ -278,24 +299,71 @@ public class Updater implements Runnable {
         }
     }
 
+    private void downloadLibraries(Properties properties) throws Exception {
+        String url = properties.getProperty("url");
+
+        setAction("Downloading libraries...0%");
+        setPercent(0);
+        LOGGER.info("Downloading libraries: " + url + "lib.zip");
+        byte[] libs = Signlink.download(url + "lib.zip", (percent) -> {
+            setPercent(percent);
+            setAction("Downloading libraries..." + percent + "%");
+        });
+
+        // Unzip them directly into the same cache directory, expecting the CRCs recorded in lib.zip
+        verifier.expect(Signlink.unzip(libs, Signlink.getCachePath()));
+    }
+
+    /**
+     * Deletes the libraries that failed verification and extracts lib.zip again.
+     * Their stamps are kept until the re-extract replaces them, so an interrupted restore still fails.
+     */
+    private void restoreLibraries(Properties properties) throws Exception {
+        for (Path path : verifier.getCorruptLibraries()) {
+            LOGGER.info("Deleting corrupt library: " + path);
+            Files.deleteIfExists(path);
+        }
+
+        downloadLibraries(properties);
+        librariesRestored = true;
+    }
+
     private void verifyFiles(Properties properties) throws Exception {
         setAction("Verifying...");
         setPercent(70);
 
         LOGGER.info("Verifying downloaded files...");
-        Thread.sleep(200L);
 
-        Path codePath = Signlink.getPath("code.dat");
         Path revisionTxt = Signlink.getPath("revision.txt");
 
-        // Verify jar with CRC
-        byte[] jar = Files.readAllBytes(codePath);
-        CRC32 crc = new CRC32();
-        crc.update(jar);
-        long actualCrc = crc.getValue();
+        // Verify jar, libraries and natives against their stamps
         long expectedCrc = Long.parseLong(properties.getProperty("crc"));
-        if (actualCrc != expectedCrc) {
-            LOGGER.warning("CRC mismatch! " + actualCrc + " != " + expectedCrc + ". Forcing cleanup...");
+        Verifier.Result result = verifier.verify(expectedCrc, deepVerify,
+                Boolean.parseBoolean(properties.getProperty("lib")));
+        deepVerify = false;
+        if (result == Verifier.Result.LIBRARIES_UNVERIFIED) {
+            if (librariesRestored) {
+                throw new IOException("lib.zip contains no libraries to verify.");
+            }
+            LOGGER.warning("Libraries have no verification stamps. Restoring from lib.zip...");
+            currentState = UpdateState.RESTORE_LIBRARIES;
+            return;
+        }
+        if (result == Verifier.Result.LIBRARIES_CORRUPT) {
+            String corrupt = verifier.describe(verifier.getCorruptLibraries());
+            if (librariesRestored) {
+                throw new IOException("Libraries are still corrupt after re-downloading: " + corrupt);
+            }
+            LOGGER.warning("Corrupt libraries: " + corrupt + ". Restoring from lib.zip...");
+            currentState = UpdateState.RESTORE_LIBRARIES;
+            return;
+        }
+        if (result == Verifier.Result.CLIENT_CORRUPT) {
+            if (clientRedownloaded) {
+                throw new IOException("Client CRC " + verifier.getClientCrc()
+                        + " still doesn't match the server CRC " + expectedCrc + " after re-downloading.");
+            }
+            LOGGER.warning("Verification failed. Forcing cleanup...");
             currentState = UpdateState.CLEANUP; // Force cleanup and retry
             return;
         }
@@ -305,6 +373,10 @@ public class Updater implements Runnable {
         String localRevision = new String(data, StandardCharsets.UTF_8);
         String serverRevision = properties.getProperty("revision");
         if (!localRevision.equals(serverRevision)) {
+            if (clientRedownloaded) {
+                throw new IOException("Revision " + localRevision + " still doesn't match the server revision "
+                        + serverRevision + " after re-downloading.");
+            }
             LOGGER.warning("Revision mismatch! local=" + localRevision + ", server=" + serverRevision + ". Forcing cleanup...");
             currentState = UpdateState.CLEANUP;
         }
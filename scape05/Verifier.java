@@ -0,0 +1,363 @@
+package scape05;
+
+import sign.Signlink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Verifies the cached client jar, libraries and natives.
+ * <p>
+ * Each file's size, modification time, file key and CRC are stored in a stamp file
+ * (~/.scape1/verify by default). On later launches a file whose metadata still matches
+ * its stamp is trusted without being read again; anything else is re-hashed in parallel.
+ * A deep verify ignores the metadata and re-hashes everything.
+ * <p>
+ * When the launcher manages the libraries, their stamps come from the CRCs in lib.zip
+ * and any missing or changed library is reported. Otherwise libraries are only watched:
+ * changes are logged and re-stamped.
+ */
+public class Verifier {
+
+    private static final Logger LOGGER = Logger.getLogger(Verifier.class.getName());
+
+    /**
+     * Name of the stamp file inside the cache directory.
+     */
+    public static final String STAMP_FILE = "verify";
+
+    /**
+     * Size of each hashing thread's read buffer.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Direct read buffers, one per hashing thread. Files are read rather than memory-mapped,
+     * because Windows won't delete or truncate a file while a mapping of it is still alive.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final String CLIENT_KEY = "code.dat";
+
+    /**
+     * Metadata of an expected stamp, which never matches a real file and so forces a hash.
+     */
+    private static final String UNKNOWN_META = "-";
+
+    private static final String[] NATIVE_SUFFIXES = {".dll", ".so", ".dylib", ".jnilib"};
+
+    private final Path cachePath = Signlink.getCachePath();
+    private final Properties stamps = new Properties();
+    private final List<Path> corruptLibraries = new ArrayList<>();
+    private long clientCrc = -1;
+
+    public enum Result {
+        INTACT,
+        CLIENT_CORRUPT,
+        LIBRARIES_CORRUPT,
+        LIBRARIES_UNVERIFIED
+    }
+
+    /**
+     * Checks every cached artifact against its stamp.
+     * <p>
+     * Managed libraries that are missing or whose hash no longer matches keep their stamp,
+     * so they keep failing until they are restored; see {@link #getCorruptLibraries()}.
+     *
+     * @param expectedCrc the server CRC of code.dat
+     * @param deep        if true, every file is re-hashed even when its stamp is unchanged
+     * @param managed     if true, libraries come from lib.zip and must match its CRCs
+     * @return LIBRARIES_CORRUPT if a managed library is missing or changed, LIBRARIES_UNVERIFIED
+     * if no managed library has a stamp, otherwise CLIENT_CORRUPT if code.dat is bad
+     */
+    public Result verify(long expectedCrc, boolean deep, boolean managed) throws Exception {
+        loadStamps();
+        corruptLibraries.clear();
+        clientCrc = -1;
+
+        Path codePath = Signlink.getPath("code.dat");
+        if (!Files.isRegularFile(codePath)) {
+            LOGGER.warning("code.dat not found!");
+            return Result.CLIENT_CORRUPT;
+        }
+
+        List<Path> artifacts = new ArrayList<>();
+        artifacts.add(codePath);
+        if (managed) {
+            // Libraries extracted before stamps existed have nothing to be checked against
+            if (!stamps.stringPropertyNames().stream().anyMatch(key -> !key.equals(CLIENT_KEY))) {
+                LOGGER.warning("Libraries have no verification stamps.");
+                return Result.LIBRARIES_UNVERIFIED;
+            }
+
+            // Only files extracted from lib.zip carry a stamp; anything else isn't ours to check
+            for (String key : new TreeSet<>(stamps.stringPropertyNames())) {
+                if (key.equals(CLIENT_KEY)) {
+                    continue;
+                }
+                Path path = cachePath.resolve(key);
+                if (Files.isRegularFile(path)) {
+                    artifacts.add(path);
+                } else {
+                    LOGGER.warning("Library missing: " + key);
+                    corruptLibraries.add(path);
+                }
+            }
+        } else {
+            artifacts.addAll(collectLibraries());
+
+            // Unmanaged libraries may come and go, so forget the ones that are gone
+            Set<String> present = new HashSet<>();
+            for (Path path : artifacts) {
+                present.add(keyOf(path));
+            }
+            for (String key : stamps.stringPropertyNames()) {
+                if (!present.contains(key)) {
+                    LOGGER.info("Library removed: " + key);
+                    stamps.remove(key);
+                }
+            }
+        }
+        LOGGER.info("Verifying " + artifacts.size() + " artifact(s)" + (deep ? " (deep)" : "") + "...");
+
+        int threads = Math.max(1, Math.min(artifacts.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Map<Path, Future<String>> results = new LinkedHashMap<>();
+        try {
+            for (Path path : artifacts) {
+                results.put(path, executor.submit(() -> check(path, deep)));
+            }
+
+            boolean clientIntact = true;
+            for (Map.Entry<Path, Future<String>> entry : results.entrySet()) {
+                Path path = entry.getKey();
+                boolean client = path.equals(codePath);
+                String stamp;
+                try {
+                    stamp = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Failed to verify " + path, e.getCause());
+                    if (client) {
+                        clientIntact = false;
+                    } else if (managed) {
+                        corruptLibraries.add(path);
+                    }
+                    continue;
+                }
+
+                String key = keyOf(path);
+                String previous = stamps.getProperty(key);
+                long crc = crcOf(stamp);
+
+                if (client) {
+                    clientCrc = crc;
+                    if (crc != expectedCrc) {
+                        LOGGER.warning("CRC mismatch! " + crc + " != " + expectedCrc);
+                        stamps.remove(key);
+                        clientIntact = false;
+                        continue;
+                    }
+                } else if (previous != null && crcOf(previous) != crc) {
+                    LOGGER.warning("Hash mismatch for " + key + "! " + crc + " != " + crcOf(previous));
+                    if (managed) {
+                        corruptLibraries.add(path);
+                        continue;
+                    }
+                    LOGGER.info("Libraries aren't managed by the launcher, re-stamping " + key);
+                }
+                stamps.setProperty(key, stamp);
+            }
+
+            saveStamps();
+
+            if (!corruptLibraries.isEmpty()) {
+                return Result.LIBRARIES_CORRUPT;
+            }
+            return clientIntact ? Result.INTACT : Result.CLIENT_CORRUPT;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Records the CRCs of freshly extracted files as the expected stamps of the libraries among them.
+     * The files themselves are hashed against these on the next {@link #verify(long, boolean, boolean)}.
+     */
+    public void expect(Map<Path, Long> crcs) throws IOException {
+        loadStamps();
+        for (Map.Entry<Path, Long> entry : crcs.entrySet()) {
+            String key = keyOf(entry.getKey());
+            if (isLibrary(key)) {
+                stamps.setProperty(key, UNKNOWN_META + "," + entry.getValue());
+            }
+        }
+        saveStamps();
+    }
+
+    /**
+     * Returns the CRC of code.dat computed by the last {@link #verify(long, boolean, boolean)}, or -1.
+     */
+    public long getClientCrc() {
+        return clientCrc;
+    }
+
+    /**
+     * Returns the libraries and natives that failed the last {@link #verify(long, boolean, boolean)}.
+     */
+    public List<Path> getCorruptLibraries() {
+        return Collections.unmodifiableList(corruptLibraries);
+    }
+
+    /**
+     * Returns the stamp keys of the given paths, for logging and error messages.
+     */
+    public String describe(List<Path> paths) {
+        return paths.stream().map(this::keyOf).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Removes all stored stamps, e.g. when the cache is cleaned up.
+     */
+    public void reset() throws IOException {
+        stamps.clear();
+        Files.deleteIfExists(Signlink.getPath(STAMP_FILE));
+    }
+
+    /**
+     * Returns the stamp of the given file, re-using the stored CRC if the metadata is unchanged.
+     */
+    private String check(Path path, boolean deep) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        String meta = attrs.size() + "," + attrs.lastModifiedTime().toMillis() + "," + attrs.fileKey();
+
+        String previous = stamps.getProperty(keyOf(path));
+        if (!deep && previous != null && previous.substring(0, previous.lastIndexOf(',')).equals(meta)) {
+            return previous;
+        }
+        return meta + "," + hash(path);
+    }
+
+    /**
+     * Computes the CRC32 of a file, reading it through the thread's direct buffer.
+     */
+    private static long hash(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Gathers the jars and natives in the cache root, lib/ and natives/.
+     * Other files there are written by the game at runtime and are left alone.
+     */
+    private List<Path> collectLibraries() throws IOException {
+        List<Path> artifacts = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cachePath)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path) && isLibrary(path.getFileName().toString())) {
+                    artifacts.add(path);
+                }
+            }
+        }
+
+        for (String dir : new String[]{"lib", "natives"}) {
+            Path dirPath = cachePath.resolve(dir);
+            if (!Files.isDirectory(dirPath)) {
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(dirPath)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(path -> isLibrary(path.getFileName().toString()))
+                        .sorted()
+                        .forEach(artifacts::add);
+            }
+        }
+        return artifacts;
+    }
+
+    private static boolean isLibrary(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".jar")) {
+            return true;
+        }
+        for (String suffix : NATIVE_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String keyOf(Path path) {
+        return cachePath.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static long crcOf(String stamp) {
+        return Long.parseLong(stamp.substring(stamp.lastIndexOf(',') + 1));
+    }
+
+    private void loadStamps() {
+        stamps.clear();
+        Path stampPath = Signlink.getPath(STAMP_FILE);
+        if (!Files.exists(stampPath)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(stampPath)) {
+            stamps.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Failed to load verification stamps, re-hashing everything.", e);
+            stamps.clear();
+        }
+
+        // Discard malformed entries and files that aren't artifacts rather than failing on them later
+        for (String key : stamps.stringPropertyNames()) {
+            String stamp = stamps.getProperty(key);
+            try {
+                if (stamp.lastIndexOf(',') <= 0 || !(key.equals(CLIENT_KEY) || isLibrary(key))) {
+                    stamps.remove(key);
+                } else {
+                    crcOf(stamp);
+                }
+            } catch (NumberFormatException e) {
+                stamps.remove(key);
+            }
+        }
+    }
+
+    private void saveStamps() throws IOException {
+        Path stampPath = Signlink.getPath(STAMP_FILE);
+        try (OutputStream out = Files.newOutputStream(stampPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            stamps.store(out, "Verification Stamps");
+        }
+        LOGGER.fine("Saved verification stamps to " + stampPath);
+    }
+}
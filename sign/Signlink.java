@@ -8,6 +8,8 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -22,20 +24,22 @@ public class Signlink {
     private static final Logger LOGGER = Logger.getLogger(Signlink.class.getName());
     public static ClassLoader loader = ClassLoader.getSystemClassLoader();
 
-    public static void unzip(byte[] data, Path outputPath) throws IOException {
+    public static Map<Path, Long> unzip(byte[] data, Path outputPath) throws IOException {
         if (data == null || data.length == 0) {
             throw new IOException("Cannot unzip empty or null data.");
         }
         try (InputStream in = new ByteArrayInputStream(data)) {
-            unzip(in, outputPath);
+            return unzip(in, outputPath);
         }
     }
 
     /**
      * Unzips the content of the given InputStream to the specified path.
      * Existing files are overwritten.
+     *
+     * @return the extracted files mapped to the CRC32 recorded for them in the archive
      */
-    public static void unzip(InputStream in, Path outputPath) throws IOException {
+    public static Map<Path, Long> unzip(InputStream in, Path outputPath) throws IOException {
         if (in == null) {
             throw new IOException("InputStream cannot be null.");
         }
@@ -43,6 +47,7 @@ public class Signlink {
             Files.createDirectories(outputPath);
         }
 
+        Map<Path, Long> crcs = new LinkedHashMap<>();
         try (ZipInputStream zis = new ZipInputStream(in)) {
             ZipEntry entry;
             byte[] buffer = new byte[4096];
@@ -61,8 +66,12 @@ public class Signlink {
                     }
                 }
                 zis.closeEntry();
+
+                // The CRC is only known once the entry has been read in full
+                crcs.put(dst, entry.getCrc());
             }
         }
+        return crcs;
     }
 
     public static byte[] download(String url) throws IOException {